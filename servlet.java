@@ -14,10 +14,10 @@ public class AggregatorServlet extends HttpServlet {
         .connectTimeout(Duration.ofSeconds(5))
         .build();
 
-    // configure these with actual endpoints & auth
-    private static final String HPNA_API = "https://hpna.example.com/api/status?host=";
-    private static final String NNM_API  = "https://nnm.example.com/api/deviceStatus?host=";
-    private static final String SEVONE_API= "https://sevone.example.com/api/check?host=";
+    // configure these with actual endpoints & auth (or -Dnms.hpna.api=... etc., used by the load test stubs)
+    private static final String HPNA_API = System.getProperty("nms.hpna.api", "https://hpna.example.com/api/status?host=");
+    private static final String NNM_API  = System.getProperty("nms.nnm.api", "https://nnm.example.com/api/deviceStatus?host=");
+    private static final String SEVONE_API= System.getProperty("nms.sevone.api", "https://sevone.example.com/api/check?host=");
 
     private static final Gson gson = new Gson();
 
@@ -0,0 +1,347 @@
+// AggregatorLoadTest.java  (Java 17+, needs tomcat-embed-core + gson on the classpath)
+//
+// Offline soak test for AggregatorServlet: starts three stub NMS servers on localhost,
+// runs the servlet in embedded Tomcat and drives it with an open-model (Poisson arrival)
+// load, so a slow servlet builds up a queue instead of slowing the load down.
+// Latency is measured from the scheduled send time, not the actual one.
+//
+// java -Dloadtest.rate=500 -Dloadtest.duration=60 AggregatorLoadTest
+//
+// Settings (system properties, defaults in brackets):
+//   loadtest.rate [500] requests/s     loadtest.duration [60] s      loadtest.warmup [10] s
+//   loadtest.hosts [1000] distinct hosts                            loadtest.tomcatThreads [200]
+//   stub.latencyMs [20] fixed latency  stub.jitterMs [30] exponential mean on top
+//   stub.errorRate [0.01] HTTP 500     stub.slowRate [0.001] responses taking stub.slowMs [10000]
+//   loadtest.baseline [aggregator-loadtest-baseline.properties]     loadtest.saveBaseline [false]
+//   loadtest.maxThroughputDrop [0.10]  loadtest.maxP99Rise [0.20]   loadtest.maxErrorRateRise [0.01]
+//
+// Throughput counts HTTP 200 responses that complete inside the send window; the drain afterwards is not counted.
+// With a baseline file present the run is compared against it and exits with 1 on regression.
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.catalina.Context;
+import org.apache.catalina.startup.Tomcat;
+
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+import java.io.*;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.LockSupport;
+
+public class AggregatorLoadTest {
+
+    private static final double RATE = dbl("loadtest.rate", 500);
+    private static final int DURATION_SEC = (int) dbl("loadtest.duration", 60);
+    private static final int WARMUP_SEC = (int) dbl("loadtest.warmup", 10);
+    private static final int HOSTS = (int) dbl("loadtest.hosts", 1000);
+    private static final int TOMCAT_THREADS = (int) dbl("loadtest.tomcatThreads", 200);
+
+    private static final double STUB_LATENCY_MS = dbl("stub.latencyMs", 20);
+    private static final double STUB_JITTER_MS = dbl("stub.jitterMs", 30);
+    private static final double STUB_ERROR_RATE = dbl("stub.errorRate", 0.01);
+    private static final double STUB_SLOW_RATE = dbl("stub.slowRate", 0.001);
+    private static final double STUB_SLOW_MS = dbl("stub.slowMs", 10000);
+
+    private static final Path BASELINE = Paths.get(System.getProperty("loadtest.baseline", "aggregator-loadtest-baseline.properties"));
+
+    private static final List<HttpServer> stubs = new ArrayList<>();
+
+    public static void main(String[] args) throws Exception {
+        // the servlet reads its endpoints in a static initializer, so stubs must be up first
+        System.setProperty("nms.hpna.api", stub("{\"status\":\"up\"}") + "/api/status?host=");
+        System.setProperty("nms.nnm.api", stub("{\"deviceState\":\"managed\"}") + "/api/deviceStatus?host=");
+        System.setProperty("nms.sevone.api", stub("{\"status\":\"ok\"}") + "/api/check?host=");
+
+        Tomcat tomcat = new Tomcat();
+        tomcat.setBaseDir(Files.createTempDirectory("aggregator-loadtest").toString());
+        tomcat.setPort(0);
+        tomcat.getConnector().setProperty("maxThreads", Integer.toString(TOMCAT_THREADS));
+        Context ctx = tomcat.addContext("", null);
+        Tomcat.addServlet(ctx, "aggregator", new AggregatorServlet());
+        ctx.addServletMappingDecoded("/status", "aggregator");
+        tomcat.start();
+        String target = "http://127.0.0.1:" + tomcat.getConnector().getLocalPort() + "/status?host=";
+
+        // the driver gets its own thread names so its threads are not counted as the servlet's;
+        // its selector thread can only be told apart by being new after the build
+        Set<String> before = threadNames();
+        AtomicInteger loadgenThreads = new AtomicInteger();
+        HttpClient driver = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(5))
+            .executor(Executors.newCachedThreadPool(r -> new Thread(r, "loadgen-" + loadgenThreads.incrementAndGet())))
+            .build();
+        Set<String> driverThreads = threadNames();
+        driverThreads.removeAll(before);
+        ThreadSampler.driverThreads.addAll(driverThreads);
+
+        System.out.printf("Warm-up %ds at %.0f req/s%n", WARMUP_SEC, RATE);
+        drive(driver, target, WARMUP_SEC);
+
+        System.out.printf("Measuring %ds at %.0f req/s%n", DURATION_SEC, RATE);
+        Properties result = drive(driver, target, DURATION_SEC);
+
+        tomcat.stop();
+        stubs.forEach(s -> s.stop(0));
+
+        result.forEach((k, v) -> System.out.printf("  %-22s %s%n", k, v));
+        int exit = compareWithBaseline(result);
+        if (Boolean.getBoolean("loadtest.saveBaseline") || !Files.exists(BASELINE)) {
+            try (Writer w = Files.newBufferedWriter(BASELINE, StandardCharsets.UTF_8)) {
+                result.store(w, "AggregatorServlet load test baseline");
+            }
+            System.out.println("Saved baseline to " + BASELINE.toAbsolutePath());
+        }
+        System.exit(exit);
+    }
+
+    /**
+     * Sends Poisson arrivals at RATE for the given time and waits for the stragglers.
+     */
+    private static Properties drive(HttpClient driver, String target, int seconds) throws Exception {
+        int expected = (int) (RATE * seconds * 1.5) + 1000;
+        AtomicLongArray latencies = new AtomicLongArray(expected);
+        AtomicInteger recorded = new AtomicInteger();
+        AtomicInteger okInWindow = new AtomicInteger();
+        Map<String, AtomicInteger> outcomes = new ConcurrentSkipListMap<>();
+        List<CompletableFuture<?>> inFlight = new ArrayList<>();
+
+        GcPauses gc = new GcPauses();
+        ThreadSampler threads = new ThreadSampler();
+        threads.start();
+
+        Random random = new Random(42);
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(seconds);
+        long next = start;
+        int sent = 0;
+        while (next < end) {
+            long now;
+            while ((now = System.nanoTime()) < next) LockSupport.parkNanos(next - now);
+
+            final long scheduled = next;
+            HttpRequest req = HttpRequest.newBuilder(URI.create(target + "dev-" + random.nextInt(HOSTS)))
+                .timeout(Duration.ofSeconds(30)).GET().build();
+            inFlight.add(driver.sendAsync(req, HttpResponse.BodyHandlers.discarding())
+                .whenComplete((r, ex) -> {
+                    long completed = System.nanoTime();
+                    int i = recorded.getAndIncrement();
+                    if (i < expected) latencies.set(i, completed - scheduled);
+                    if (ex == null && r.statusCode() == 200 && completed <= end) okInWindow.incrementAndGet();
+                    String outcome = ex != null ? "client-error" : "http-" + r.statusCode();
+                    outcomes.computeIfAbsent(outcome, k -> new AtomicInteger()).incrementAndGet();
+                }));
+            sent++;
+            next += (long) (-Math.log(1 - random.nextDouble()) / RATE * 1e9);
+        }
+        double sendSeconds = (System.nanoTime() - start) / 1e9;
+
+        try {
+            CompletableFuture.allOf(inFlight.toArray(new CompletableFuture[0])).get(60, TimeUnit.SECONDS);
+        } catch (ExecutionException | TimeoutException ignored) {
+            // failures are counted per request
+        }
+        double totalSeconds = (System.nanoTime() - start) / 1e9;
+        threads.stop();
+        gc.stop();
+
+        long[] sorted = new long[Math.min(recorded.get(), expected)];
+        for (int i = 0; i < sorted.length; i++) sorted[i] = latencies.get(i);
+        Arrays.sort(sorted);
+
+        Properties p = new Properties();
+        p.setProperty("offered.rps", fmt(sent / sendSeconds));
+        // only 200s that completed inside the send window count; the drain is reported separately
+        p.setProperty("throughput.rps", fmt(okInWindow.get() / (double) seconds));
+        int ok = outcomes.getOrDefault("http-200", new AtomicInteger()).get();
+        p.setProperty("error.rate", String.format(Locale.ROOT, "%.4f", sorted.length == 0 ? 0 : 1 - (double) ok / sorted.length));
+        p.setProperty("drain.seconds", fmt(totalSeconds - sendSeconds));
+        p.setProperty("latency.p50.ms", fmt(percentile(sorted, 50) / 1e6));
+        p.setProperty("latency.p99.ms", fmt(percentile(sorted, 99) / 1e6));
+        p.setProperty("latency.p999.ms", fmt(percentile(sorted, 99.9) / 1e6));
+        p.setProperty("latency.max.ms", fmt(sorted.length == 0 ? 0 : sorted[sorted.length - 1] / 1e6));
+        outcomes.forEach((k, v) -> p.setProperty("outcome." + k, Integer.toString(v.get())));
+        p.setProperty("gc.pauses", Integer.toString(gc.count.get()));
+        p.setProperty("gc.pause.total.ms", Long.toString(gc.totalMs.get()));
+        p.setProperty("gc.pause.max.ms", Long.toString(gc.maxMs.get()));
+        p.setProperty("threads.peak", Integer.toString(threads.peak));
+        threads.peakByPool.forEach((k, v) -> p.setProperty("threads.peak." + k, Integer.toString(v)));
+        return p;
+    }
+
+    /**
+     * Exit code 1 when throughput dropped, p99 rose or the error rate rose beyond the allowed margins.
+     */
+    private static int compareWithBaseline(Properties result) throws IOException {
+        if (!Files.exists(BASELINE)) return 0;
+        Properties base = new Properties();
+        try (Reader r = Files.newBufferedReader(BASELINE, StandardCharsets.UTF_8)) {
+            base.load(r);
+        }
+
+        double maxDrop = dbl("loadtest.maxThroughputDrop", 0.10);
+        double maxRise = dbl("loadtest.maxP99Rise", 0.20);
+        int exit = 0;
+        double baseRps = Double.parseDouble(base.getProperty("throughput.rps", "0"));
+        double rps = Double.parseDouble(result.getProperty("throughput.rps"));
+        if (rps < baseRps * (1 - maxDrop)) {
+            System.out.printf("REGRESSION throughput %.1f req/s, baseline %.1f req/s%n", rps, baseRps);
+            exit = 1;
+        }
+        double baseP99 = Double.parseDouble(base.getProperty("latency.p99.ms", "0"));
+        double p99 = Double.parseDouble(result.getProperty("latency.p99.ms"));
+        if (baseP99 > 0 && p99 > baseP99 * (1 + maxRise)) {
+            System.out.printf("REGRESSION p99 %.1f ms, baseline %.1f ms%n", p99, baseP99);
+            exit = 1;
+        }
+        double maxErrorRise = dbl("loadtest.maxErrorRateRise", 0.01);
+        double baseErrors = Double.parseDouble(base.getProperty("error.rate", "0"));
+        double errors = Double.parseDouble(result.getProperty("error.rate"));
+        if (errors > baseErrors + maxErrorRise) {
+            System.out.printf("REGRESSION error rate %.2f%%, baseline %.2f%%%n", errors * 100, baseErrors * 100);
+            exit = 1;
+        }
+        if (exit == 0) System.out.println("Within baseline " + BASELINE.toAbsolutePath());
+        return exit;
+    }
+
+    /**
+     * Starts a stub NMS endpoint that answers body after the configured latency, or fails
+     * according to the error/slow rates. Returns its base URL.
+     */
+    private static String stub(String body) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+        AtomicInteger n = new AtomicInteger();
+        server.setExecutor(Executors.newCachedThreadPool(r -> new Thread(r, "stub-" + n.incrementAndGet())));
+        byte[] ok = body.getBytes(StandardCharsets.UTF_8);
+        server.createContext("/", exchange -> {
+            try {
+                ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                double roll = rnd.nextDouble();
+                long delayMs = (long) (STUB_LATENCY_MS - Math.log(1 - rnd.nextDouble()) * STUB_JITTER_MS);
+                if (roll < STUB_SLOW_RATE) delayMs = (long) STUB_SLOW_MS;
+                Thread.sleep(delayMs);
+
+                if (roll >= STUB_SLOW_RATE && roll < STUB_SLOW_RATE + STUB_ERROR_RATE) {
+                    exchange.sendResponseHeaders(500, -1);
+                    return;
+                }
+                exchange.getResponseHeaders().add("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, ok.length);
+                exchange.getResponseBody().write(ok);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                exchange.close();
+            }
+        });
+        server.start();
+        stubs.add(server);
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /** Collects every GC pause reported by the JVM while running. */
+    private static class GcPauses {
+        final AtomicInteger count = new AtomicInteger();
+        final AtomicLong totalMs = new AtomicLong();
+        final AtomicLong maxMs = new AtomicLong();
+        private final List<Runnable> unregister = new ArrayList<>();
+
+        GcPauses() {
+            for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+                NotificationEmitter emitter = (NotificationEmitter) bean;
+                javax.management.NotificationListener listener = (notification, handback) -> {
+                    if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) return;
+                    GarbageCollectionNotificationInfo info =
+                        GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+                    // concurrent cycles do not stop application threads
+                    if (info.getGcAction().contains("concurrent") || info.getGcName().contains("Cycles")) return;
+                    long ms = info.getGcInfo().getDuration();
+                    count.incrementAndGet();
+                    totalMs.addAndGet(ms);
+                    maxMs.accumulateAndGet(ms, Math::max);
+                };
+                emitter.addNotificationListener(listener, null, null);
+                unregister.add(() -> {
+                    try {
+                        emitter.removeNotificationListener(listener);
+                    } catch (Exception ignored) {
+                    }
+                });
+            }
+        }
+
+        void stop() {
+            unregister.forEach(Runnable::run);
+        }
+    }
+
+    private static Set<String> threadNames() {
+        Set<String> names = new HashSet<>();
+        for (Thread t : Thread.getAllStackTraces().keySet()) names.add(t.getName());
+        return names;
+    }
+
+    /** Samples live threads once a second, grouped by pool name (Tomcat, servlet HttpClient, load generator, stubs). */
+    private static class ThreadSampler {
+        static final Set<String> driverThreads = ConcurrentHashMap.newKeySet();
+
+        final Map<String, Integer> peakByPool = new TreeMap<>();
+        volatile int peak;
+        private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        private final ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+
+        void start() {
+            mx.resetPeakThreadCount();
+            timer.scheduleAtFixedRate(this::sample, 0, 1, TimeUnit.SECONDS);
+        }
+
+        void stop() throws InterruptedException {
+            timer.shutdown();
+            timer.awaitTermination(5, TimeUnit.SECONDS);
+            peak = mx.getPeakThreadCount();
+        }
+
+        private synchronized void sample() {
+            Map<String, Integer> now = new HashMap<>();
+            for (Thread t : Thread.getAllStackTraces().keySet()) {
+                now.merge(pool(t.getName()), 1, Integer::sum);
+            }
+            now.forEach((k, v) -> peakByPool.merge(k, v, Math::max));
+        }
+
+        private static String pool(String name) {
+            if (name.startsWith("loadgen-") || driverThreads.contains(name)) return "loadgen";
+            if (name.startsWith("http-nio")) return "tomcat";
+            if (name.startsWith("HttpClient")) return "httpclient";
+            if (name.startsWith("stub-")) return "stub";
+            if (name.startsWith("ForkJoinPool")) return "forkjoin";
+            return "other";
+        }
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) return 0;
+        int rank = (int) Math.ceil(p / 100.0 * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+    }
+
+    private static double dbl(String key, double def) {
+        String v = System.getProperty(key);
+        return v == null ? def : Double.parseDouble(v);
+    }
+
+    private static String fmt(double v) {
+        return String.format(Locale.ROOT, "%.1f", v);
+    }
+}
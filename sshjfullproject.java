@@ -57,7 +57,7 @@ Files included (single-file listing for copy/paste)
             <artifactId>spring-boot-starter-web</artifactId>
         </dependency>
 
-        <!-- For reactive WebClient if needed later -->
+        <!-- Reactive WebClient for the NMS status aggregator -->
         <dependency>
             <groupId>org.springframework.boot</groupId>
             <artifactId>spring-boot-starter-webflux</artifactId>
@@ -120,24 +120,81 @@ Files included (single-file listing for copy/paste)
 server:
   port: 8080
 
+spring:
+  mvc:
+    async:
+      # bulk status streams run as async requests; must cover ceil(bulk-max-hosts / bulk-concurrency) * overall-timeout-ms
+      request-timeout: 300s
+
 hpna:
   host: hpna.example.com
   port: 8022
   username: hpna_user
   password: hpna_password
+  private-key-path:         # optional; key auth first, password as fallback
+  private-key-passphrase:
 
 device:
   username: device_user
   password: device_password
+  private-key-path:
+  private-key-passphrase:
 
 csv:
   max-parallel: 15
   input-temp-dir: /tmp/hpna-input
   output-temp-dir: /tmp/hpna-output
+  group-column: group       # optional column naming the device group for rate limits
 
 ssh:
   connect-timeout-ms: 15000
   command-timeout-sec: 60
+  known-hosts: ${user.home}/.ssh/hpna_known_hosts   # created on first accept-new write
+  host-key-policy: accept-new   # strict | accept-new | off
+  ciphers: aes128-gcm@openssh.com,aes256-gcm@openssh.com,aes128-ctr,aes256-ctr
+  kex: curve25519-sha256,curve25519-sha256@libssh.org,ecdh-sha2-nistp256,diffie-hellman-group14-sha256
+
+cluster:
+  role: standalone          # standalone | coordinator | worker
+  queue-dir: /tmp/hpna-queue
+  shard-size: 15
+  lease-timeout-ms: 60000
+  poll-interval-ms: 1000
+  coordinator-works: true
+  job-timeout-ms: 14400000  # fail a cluster job that has not finished after 4 hours
+
+trace:
+  enabled: true
+  buffer-size: 65536
+  slowest-rows: 20
+
+rate-limit:
+  enabled: false            # opt-in; when false logins are not paced at all
+  global-logins-per-sec: 10
+  global-burst: 10
+  jump-logins-per-sec: 5    # per jump server
+  jump-burst: 5
+  group-logins-per-sec: 2   # per device group
+  group-burst: 2
+  group-pattern:            # optional hostname regex, group 1 = device group, e.g. "^([a-z]{3}\\d{2})-"
+  instances: 1              # nodes running rows at once (cluster workers); every rate is split across them
+
+nms:
+  hpna:
+    api: https://hpna.example.com/api/status?host=
+    max-connections: 200
+  nnm:
+    api: https://nnm.example.com/api/deviceStatus?host=
+    max-connections: 200
+  sevone:
+    api: https://sevone.example.com/api/check?host=
+    max-connections: 200
+  connect-timeout-ms: 5000
+  request-timeout-ms: 6000
+  overall-timeout-ms: 8000
+  pending-acquire-max: 2000
+  bulk-concurrency: 256
+  bulk-max-hosts: 5000
 
 --- src/main/java/com/example/hpna/HpnaSshCsvApplication.java ---
 
@@ -197,16 +254,37 @@ public class DeviceResult {
     private String output;
 }
 
+--- src/main/java/com/example/hpna/dto/DeviceTask.java ---
+
+package com.example.hpna.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@Data
+@AllArgsConstructor
+public class DeviceTask {
+    private int index;
+    private String hostname;
+    private String command;
+    private String group;
+}
+
 --- src/main/java/com/example/hpna/service/SshService.java ---
 
 package com.example.hpna.service;
 
 import com.example.hpna.dto.DeviceResult;
+import com.example.hpna.ratelimit.LoginRateLimiter;
+import com.example.hpna.ssh.SshClientFactory;
+import com.example.hpna.trace.TraceRecorder;
+import jakarta.annotation.PostConstruct;
 import net.schmizz.sshj.SSHClient;
 import net.schmizz.sshj.connection.channel.direct.Session;
 import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
@@ -219,6 +297,15 @@ public class SshService {
 
     private static final Logger log = LoggerFactory.getLogger(SshService.class);
 
+    @Autowired
+    private TraceRecorder traceRecorder;
+
+    @Autowired
+    private LoginRateLimiter loginRateLimiter;
+
+    @Autowired
+    private SshClientFactory sshClientFactory;
+
     @Value("${hpna.host}")
     private String hpnaHost;
 
@@ -231,47 +318,92 @@ public class SshService {
     @Value("${hpna.password}")
     private String hpnaPass;
 
+    @Value("${hpna.private-key-path:}")
+    private String hpnaKeyPath;
+
+    @Value("${hpna.private-key-passphrase:}")
+    private String hpnaKeyPassphrase;
+
     @Value("${device.username}")
     private String deviceUser;
 
     @Value("${device.password}")
     private String devicePass;
 
-    @Value("${ssh.connect-timeout-ms:15000}")
-    private int connectTimeoutMs;
+    @Value("${device.private-key-path:}")
+    private String deviceKeyPath;
+
+    @Value("${device.private-key-passphrase:}")
+    private String deviceKeyPassphrase;
 
     @Value("${ssh.command-timeout-sec:60}")
     private int commandTimeoutSec;
 
+    @PostConstruct
+    void loadKeys() throws Exception {
+        sshClientFactory.preloadKey(hpnaKeyPath, hpnaKeyPassphrase);
+        sshClientFactory.preloadKey(deviceKeyPath, deviceKeyPassphrase);
+    }
+
     /**
-     * Connects to HPNA jump server using password, creates a local port forward and
+     * Connects to HPNA jump server (key or password), creates a local port forward and
      * connects to the device via forwarded port. Executes `command` and returns output.
+     * Each phase is recorded as a span for the run trace.
      */
     public String runCommandViaHpna(String deviceHost, String command) throws Exception {
-        SSHClient jumpClient = new SSHClient();
-        SSHClient deviceClient = new SSHClient();
+        return runCommandViaHpna(deviceHost, command, null);
+    }
 
-        jumpClient.addHostKeyVerifier((h, p, k) -> true);
-        deviceClient.addHostKeyVerifier((h, p, k) -> true);
+    /**
+     * Same as {@link #runCommandViaHpna(String, String)}; waits for the login rate limits
+     * of the jump server and of the device group before connecting.
+     */
+    public String runCommandViaHpna(String deviceHost, String command, String group) throws Exception {
+        SSHClient jumpClient = sshClientFactory.newClient();
+        SSHClient deviceClient = sshClientFactory.newClient();
+
+        jumpClient.addHostKeyVerifier(sshClientFactory.hostKeyVerifier(hpnaHost, hpnaPort));
+        // the device is reached via a local forward, so verify against its real name
+        deviceClient.addHostKeyVerifier(sshClientFactory.hostKeyVerifier(deviceHost, 22));
 
         // Result collected from both stdout and stderr
         StringBuilder resultBuilder = new StringBuilder();
         int localPort = -1;
 
+        // phase in progress; on failure its time is recorded as "<phase>_failed"
+        String phase = "rate_limit_wait";
+        long t = System.nanoTime();
+
         try {
+            loginRateLimiter.acquireLogin(hpnaHost + ":" + hpnaPort, deviceHost, group);
+            t = traceRecorder.phase(deviceHost, phase, t);
+
+            phase = "jump_connect";
             log.debug("Connecting to HPNA {}:{} as {}", hpnaHost, hpnaPort, hpnaUser);
             jumpClient.connect(hpnaHost, hpnaPort);
             jumpClient.getConnection().getTransport().setHeartbeatInterval(0); // optional
-            jumpClient.authPassword(hpnaUser, hpnaPass);
+            t = traceRecorder.phase(deviceHost, phase, t);
+
+            phase = "jump_auth";
+            sshClientFactory.authenticate(jumpClient, hpnaUser, hpnaPass, hpnaKeyPath);
+            t = traceRecorder.phase(deviceHost, phase, t);
 
             // create local port forward (random available port)
+            phase = "forward";
             localPort = jumpClient.forwardLocal(0, deviceHost, 22);
             log.debug("Created local forward on port {} to {}:22 via HPNA", localPort, deviceHost);
+            t = traceRecorder.phase(deviceHost, phase, t);
 
             // connect to forwarded port (localhost:localPort)
+            phase = "device_connect";
             deviceClient.connect("127.0.0.1", localPort);
-            deviceClient.authPassword(deviceUser, devicePass);
+            t = traceRecorder.phase(deviceHost, phase, t);
 
+            phase = "device_auth";
+            sshClientFactory.authenticate(deviceClient, deviceUser, devicePass, deviceKeyPath);
+            t = traceRecorder.phase(deviceHost, phase, t);
+
+            phase = "exec";
             try (Session session = deviceClient.startSession()) {
                 log.debug("Executing command on device {}: {}", deviceHost, command);
                 Session.Command cmd = session.exec(command);
@@ -281,9 +413,13 @@ public class SshService {
 
                 // Wait for command to finish or until timeout
                 boolean finished = cmd.join(commandTimeoutSec, TimeUnit.SECONDS);
+                t = traceRecorder.phase(deviceHost, phase, t);
 
+                phase = "drain";
                 String out = IOUtils.toString(stdout, StandardCharsets.UTF_8);
                 String err = IOUtils.toString(stderr, StandardCharsets.UTF_8);
+                t = traceRecorder.phase(deviceHost, phase, t);
+                phase = "close";
 
                 if (out != null && !out.isBlank()) {
                     resultBuilder.append(out.trim());
@@ -303,7 +439,11 @@ public class SshService {
 
             return resultBuilder.toString();
 
+        } catch (Exception ex) {
+            traceRecorder.phase(deviceHost, phase + "_failed", t);
+            throw ex;
         } finally {
+            t = System.nanoTime();
             try {
                 if (deviceClient != null && deviceClient.isConnected()) deviceClient.disconnect();
             } catch (Exception ex) {
@@ -315,6 +455,7 @@ public class SshService {
             } catch (Exception ex) {
                 log.warn("Error disconnecting jump client", ex);
             }
+            traceRecorder.phase(deviceHost, "disconnect", t);
         }
     }
 }
@@ -323,7 +464,13 @@ public class SshService {
 
 package com.example.hpna.service;
 
+import com.example.hpna.cluster.FileShardQueue;
+import com.example.hpna.cluster.ShardLease;
 import com.example.hpna.dto.DeviceResult;
+import com.example.hpna.dto.DeviceTask;
+import com.example.hpna.trace.SpanEvent;
+import com.example.hpna.trace.TraceExporter;
+import com.example.hpna.trace.TraceRecorder;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVPrinter;
 import org.apache.commons.csv.CSVRecord;
@@ -341,9 +488,13 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.CompletionException;
 import java.util.concurrent.Executor;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 @Service
 public class CsvExecutionService {
@@ -357,62 +508,225 @@ public class CsvExecutionService {
     @Qualifier("sshExecutor")
     private Executor sshExecutor;
 
+    // only present when cluster.role is coordinator or worker
+    @Autowired(required = false)
+    private FileShardQueue shardQueue;
+
+    @Autowired
+    private TraceRecorder traceRecorder;
+
+    @Autowired
+    private TraceExporter traceExporter;
+
     @Value("${csv.input-temp-dir:/tmp/hpna-input}")
     private String inputTempDir;
 
     @Value("${csv.output-temp-dir:/tmp/hpna-output}")
     private String outputTempDir;
 
+    @Value("${csv.group-column:group}")
+    private String groupColumn;
+
+    @Value("${cluster.role:standalone}")
+    private String clusterRole;
+
+    @Value("${cluster.shard-size:15}")
+    private int shardSize;
+
+    @Value("${cluster.poll-interval-ms:1000}")
+    private long pollIntervalMs;
+
+    @Value("${cluster.coordinator-works:true}")
+    private boolean coordinatorWorks;
+
+    @Value("${cluster.job-timeout-ms:14400000}")
+    private long jobTimeoutMs;
+
+    @Value("${csv.max-parallel:15}")
+    private int maxParallel;
+
+    // rows of leased shards that this node is still running
+    private final AtomicInteger shardRowsInFlight = new AtomicInteger();
+
     /**
      * Process CSV located at inputPath and write output to outputPath
      */
     public Path processCsv(Path inputPath, Path outputPath) throws Exception {
         Files.createDirectories(outputPath.getParent());
 
+        List<DeviceTask> tasks = readTasks(inputPath);
+        long traceMark = traceRecorder.mark();
+
+        List<DeviceResult> results;
+        List<SpanEvent> spans;
+        if ("coordinator".equals(clusterRole)) {
+            List<List<SpanEvent>> shardSpans = new ArrayList<>();
+            results = runSharded(tasks, shardSpans);
+            spans = shardSpans.stream().flatMap(List::stream).collect(Collectors.toList());
+        } else {
+            String runId = "run-" + UUID.randomUUID();
+            results = runTasks(tasks, runId);
+            spans = traceRecorder.since(traceMark, runId);
+        }
+
+        writeResults(results, outputPath);
+
+        if (traceRecorder.isEnabled()) {
+            try {
+                traceExporter.export(spans, outputPath);
+            } catch (Exception ex) {
+                log.warn("Could not export trace for {}", outputPath, ex);
+            }
+        }
+
+        return outputPath;
+    }
+
+    /**
+     * Runs the given rows on this node's executor. Results are returned in task order,
+     * one per task. Spans are recorded under runId and each task's index.
+     */
+    public List<DeviceResult> runTasks(List<DeviceTask> tasks, String runId) {
+        return runTasksAsync(tasks, runId).join();
+    }
+
+    /**
+     * Submits the given rows to this node's executor. The future completes with one result
+     * per task, in task order, once all rows have finished; it never completes exceptionally.
+     */
+    private CompletableFuture<List<DeviceResult>> runTasksAsync(List<DeviceTask> tasks, String runId) {
         List<CompletableFuture<DeviceResult>> futureList = new ArrayList<>();
 
-        try (Reader in = new FileReader(inputPath.toFile())) {
-            Iterable<CSVRecord> records = CSVFormat.DEFAULT
-                    .withFirstRecordAsHeader()
-                    .parse(in);
+        for (DeviceTask t : tasks) {
+            final String host = t.getHostname();
+            final String command = t.getCommand();
+            final String group = t.getGroup();
+            final int index = t.getIndex();
+            final long submitted = System.nanoTime();
 
-            for (CSVRecord r : records) {
-                final String host = r.get("hostname").trim();
-                final String command = r.get("command").trim();
-
-                CompletableFuture<DeviceResult> fut = CompletableFuture.supplyAsync(() -> {
-                    try {
-                        String output = sshService.runCommandViaHpna(host, command);
-                        return new DeviceResult(host, command, output == null ? "" : output);
-                    } catch (Exception e) {
-                        log.error("Error running command for {}", host, e);
-                        return new DeviceResult(host, command, "ERROR: " + e.getMessage());
+            CompletableFuture<DeviceResult> fut;
+            try {
+                fut = CompletableFuture.supplyAsync(() -> {
+                    try (TraceRecorder.RowScope row = traceRecorder.openRow(runId, index)) {
+                        long started = traceRecorder.phase(host, "queue_wait", submitted);
+                        try {
+                            String output = sshService.runCommandViaHpna(host, command, group);
+                            return new DeviceResult(host, command, output == null ? "" : output);
+                        } catch (Exception e) {
+                            log.error("Error running command for {}", host, e);
+                            return new DeviceResult(host, command, "ERROR: " + e.getMessage());
+                        } finally {
+                            traceRecorder.phase(host, "row", started);
+                        }
                     }
                 }, sshExecutor);
-
-                futureList.add(fut);
+            } catch (Exception ex) {
+                log.warn("Executor rejected row for {}", host, ex);
+                fut = CompletableFuture.completedFuture(new DeviceResult(host, command, "ERROR: " + ex.getMessage()));
             }
-        }
 
-        // Wait for all to finish
-        CompletableFuture<Void> all = CompletableFuture.allOf(futureList.toArray(new CompletableFuture[0]));
-        try {
-            all.join();
-        } catch (CompletionException ce) {
-            log.warn("One or more tasks failed", ce);
+            futureList.add(fut);
         }
 
-        // Collect results in order of submission
-        List<DeviceResult> results = new ArrayList<>();
-        for (CompletableFuture<DeviceResult> f : futureList) {
+        // Collect results in order of submission once all have finished
+        return CompletableFuture.allOf(futureList.toArray(new CompletableFuture[0]))
+                .handle((v, failure) -> {
+                    List<DeviceResult> results = new ArrayList<>();
+                    for (int i = 0; i < futureList.size(); i++) {
+                        try {
+                            results.add(futureList.get(i).join());
+                        } catch (Exception ex) {
+                            log.warn("Task join error", ex);
+                            DeviceTask t = tasks.get(i);
+                            results.add(new DeviceResult(t.getHostname(), t.getCommand(), "ERROR: " + ex.getMessage()));
+                        }
+                    }
+                    return results;
+                });
+    }
+
+    /**
+     * Leases one more shard from the cluster queue when this node has fewer than
+     * csv.max-parallel shard rows running, and runs it in the background; results are
+     * published when its last row finishes. Several shards can be in flight at once, so a
+     * single slow device does not leave the rest of the executor idle.
+     * Returns false when the node is busy or no shard was available.
+     */
+    public boolean claimShardIfIdle() throws Exception {
+        if (shardRowsInFlight.get() >= maxParallel) return false;
+
+        ShardLease lease = shardQueue.claim();
+        if (lease == null) return false;
+
+        int rows = lease.getTasks().size();
+        shardRowsInFlight.addAndGet(rows);
+        long traceMark = traceRecorder.mark();
+
+        // the job id is the run id on every node; other shards of the same job may be running here too
+        Set<Integer> shardRows = lease.getTasks().stream().map(DeviceTask::getIndex).collect(Collectors.toSet());
+        runTasksAsync(lease.getTasks(), lease.getJobId()).whenComplete((results, failure) -> {
             try {
-                results.add(f.join());
+                List<SpanEvent> spans = traceRecorder.since(traceMark, lease.getJobId()).stream()
+                        .filter(span -> shardRows.contains(span.getRow()))
+                        .collect(Collectors.toList());
+                shardQueue.complete(lease, results, spans);
             } catch (Exception ex) {
-                log.warn("Task join error", ex);
+                log.error("Shard {} failed on this node, handing it back", lease.getShardName(), ex);
+                shardQueue.release(lease);
+            } finally {
+                shardRowsInFlight.addAndGet(-rows);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Splits the job into shards on the shared queue and waits until workers (and, unless
+     * disabled, this node) have completed all of them. Expired leases are re-queued while waiting.
+     * The spans each node recorded for its shards are added to shardSpans.
+     * Fails with TimeoutException after cluster.job-timeout-ms; the job's queue directory is
+     * removed either way.
+     */
+    private List<DeviceResult> runSharded(List<DeviceTask> tasks, List<List<SpanEvent>> shardSpans) throws Exception {
+        String jobId = shardQueue.submit(tasks, shardSize);
+        long deadline = System.currentTimeMillis() + jobTimeoutMs;
+        try {
+            while (!shardQueue.isComplete(jobId)) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw new TimeoutException("Cluster job " + jobId + " did not finish within " + jobTimeoutMs + " ms");
+                }
+                shardQueue.reapExpiredLeases();
+                if (coordinatorWorks && claimShardIfIdle()) continue;
+                Thread.sleep(pollIntervalMs);
+            }
+            try {
+                shardSpans.addAll(shardQueue.collectSpans(jobId));
+            } catch (IOException | RuntimeException ex) {
+                log.warn("Could not collect shard traces for {}; the run trace will be incomplete", jobId, ex);
+            }
+            return shardQueue.collect(jobId);
+        } finally {
+            shardQueue.delete(jobId);
+        }
+    }
+
+    private List<DeviceTask> readTasks(Path inputPath) throws Exception {
+        List<DeviceTask> tasks = new ArrayList<>();
+
+        try (Reader in = new FileReader(inputPath.toFile())) {
+            Iterable<CSVRecord> records = CSVFormat.DEFAULT
+                    .withFirstRecordAsHeader()
+                    .parse(in);
+
+            for (CSVRecord r : records) {
+                String group = r.isMapped(groupColumn) ? r.get(groupColumn).trim() : null;
+                tasks.add(new DeviceTask(tasks.size(), r.get("hostname").trim(), r.get("command").trim(), group));
             }
         }
+        return tasks;
+    }
 
-        // Write output CSV
+    private void writeResults(List<DeviceResult> results, Path outputPath) throws Exception {
         try (FileWriter writer = new FileWriter(outputPath.toFile());
              CSVPrinter printer = new CSVPrinter(writer, CSVFormat.DEFAULT.withHeader("hostname", "command", "output"))) {
             for (DeviceResult r : results) {
@@ -420,98 +734,1619 @@ public class CsvExecutionService {
             }
             printer.flush();
         }
-
-        return outputPath;
     }
 }
 
---- src/main/java/com/example/hpna/controller/ApiController.java ---
+--- src/main/java/com/example/hpna/cluster/ShardLease.java ---
 
-package com.example.hpna.controller;
+package com.example.hpna.cluster;
 
-import com.example.hpna.service.CsvExecutionService;
+import com.example.hpna.dto.DeviceTask;
+import lombok.Data;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+
+@Data
+public class ShardLease {
+    private final String jobId;
+    private final String shardName;
+    private final Path leasedFile;
+    private final List<DeviceTask> tasks;
+    private volatile ScheduledFuture<?> renewal;
+}
+
+--- src/main/java/com/example/hpna/cluster/FileShardQueue.java ---
+
+package com.example.hpna.cluster;
+
+import com.example.hpna.dto.DeviceResult;
+import com.example.hpna.dto.DeviceTask;
+import com.example.hpna.trace.SpanEvent;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.csv.CSVRecord;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.http.HttpHeaders;
-import org.springframework.http.MediaType;
-import org.springframework.http.ResponseEntity;
-import org.springframework.web.bind.annotation.*;
-import org.springframework.web.multipart.MultipartFile;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.stereotype.Component;
 
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Work queue shared by coordinator and worker nodes through a common directory.
+ * Each job has pending/, leased/ and done/ folders of shard CSVs; a shard changes owner
+ * by atomic rename, so nodes on the same filesystem need no broker or lock service.
+ * A lease is kept alive by touching the leased file; leases older than
+ * cluster.lease-timeout-ms are moved back to pending by any node.
+ */
+@Component
+@ConditionalOnExpression("!'${cluster.role:standalone}'.equals('standalone')")
+public class FileShardQueue {
+
+    private static final Logger log = LoggerFactory.getLogger(FileShardQueue.class);
+
+    private static final String PENDING = "pending";
+    private static final String LEASED = "leased";
+    private static final String DONE = "done";
+    private static final String SHARD_COUNT = "shards";
+    private static final String TRACE_SUFFIX = ".trace.json";
 
-@RestController
-@RequestMapping("/api")
-public class ApiController {
+    @Autowired
+    private ObjectMapper objectMapper;
 
-    private static final Logger log = LoggerFactory.getLogger(ApiController.class);
+    @Value("${cluster.queue-dir:/tmp/hpna-queue}")
+    private String queueDir;
 
-    @Autowired
-    private CsvExecutionService csvExecutionService;
+    @Value("${cluster.lease-timeout-ms:60000}")
+    private long leaseTimeoutMs;
 
-    @Value("${csv.input-temp-dir:/tmp/hpna-input}")
-    private String inputTempDir;
+    @Value("${cluster.worker-id:}")
+    private String workerId;
 
-    @Value("${csv.output-temp-dir:/tmp/hpna-output}")
-    private String outputTempDir;
+    private final ScheduledExecutorService leaseRenewer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "shard-lease-renewer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    @PostConstruct
+    void init() throws IOException {
+        Files.createDirectories(root());
+        if (workerId == null || workerId.isBlank()) {
+            workerId = "node-" + ProcessHandle.current().pid();
+        }
+        log.info("Cluster queue at {} (worker id {})", root(), workerId);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        leaseRenewer.shutdownNow();
+    }
 
     /**
-     * Upload CSV (multipart) and process it. Returns the output CSV as download.
-     * Input CSV must have header: hostname,command
+     * Writes the tasks as shards of at most shardSize rows and publishes the job atomically,
+     * so workers never see a partially written job. Returns the job id.
      */
-    @PostMapping(value = "/upload-and-run", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
-    public ResponseEntity<byte[]> uploadAndRun(@RequestParam("file") MultipartFile file) throws Exception {
-        Files.createDirectories(Paths.get(inputTempDir));
-        Files.createDirectories(Paths.get(outputTempDir));
+    public String submit(List<DeviceTask> tasks, int shardSize) throws IOException {
+        // time prefix keeps jobs in submit order; the UUID keeps two submits in one millisecond apart
+        String jobId = "job-" + System.currentTimeMillis() + "-" + UUID.randomUUID();
+        // createDirectory, not createDirectories: an existing staging dir fails instead of being shared
+        Path staging = Files.createDirectory(root().resolve(jobId + ".tmp"));
+        Path pending = Files.createDirectory(staging.resolve(PENDING));
+        Files.createDirectory(staging.resolve(LEASED));
+        Files.createDirectory(staging.resolve(DONE));
+
+        int shards = 0;
+        for (int from = 0; from < tasks.size(); from += shardSize) {
+            List<DeviceTask> shard = tasks.subList(from, Math.min(from + shardSize, tasks.size()));
+            writeTasks(pending.resolve(shardName(shards++)), shard);
+        }
+        Files.writeString(staging.resolve(SHARD_COUNT), Integer.toString(shards));
 
-        Path inPath = Paths.get(inputTempDir).resolve(System.currentTimeMillis() + "-input.csv");
-        Path outPath = Paths.get(outputTempDir).resolve(System.currentTimeMillis() + "-output.csv");
+        Files.move(staging, root().resolve(jobId), StandardCopyOption.ATOMIC_MOVE);
+        log.info("Submitted {} with {} rows in {} shards", jobId, tasks.size(), shards);
+        return jobId;
+    }
 
-        Files.copy(file.getInputStream(), inPath);
+    /**
+     * Leases the oldest pending shard of any job, or returns null when there is nothing to do.
+     * Idle nodes keep pulling, so faster nodes naturally take over more of a job.
+     */
+    public ShardLease claim() throws IOException {
+        for (Path job : list(root())) {
+            if (!isJobDir(job)) continue;
+
+            for (Path shard : list(job.resolve(PENDING))) {
+                Path leased = job.resolve(LEASED).resolve(shard.getFileName());
+                try {
+                    Files.move(shard, leased, StandardCopyOption.ATOMIC_MOVE);
+                    touch(leased);
+                } catch (NoSuchFileException e) {
+                    continue; // another node won the race
+                }
 
-        log.info("Saved uploaded CSV to {}", inPath);
+                // a re-queued shard may already have been finished by its slow original owner
+                if (Files.exists(job.resolve(DONE).resolve(shard.getFileName()))) {
+                    Files.deleteIfExists(leased);
+                    continue;
+                }
 
-        csvExecutionService.processCsv(inPath, outPath);
+                ShardLease lease = new ShardLease(job.getFileName().toString(),
+                        shard.getFileName().toString(), leased, readTasks(leased));
+                long period = Math.max(1000, leaseTimeoutMs / 3);
+                lease.setRenewal(leaseRenewer.scheduleAtFixedRate(() -> renew(lease), period, period, TimeUnit.MILLISECONDS));
+                log.debug("{} leased {}/{} ({} rows)", workerId, lease.getJobId(), lease.getShardName(), lease.getTasks().size());
+                return lease;
+            }
+        }
+        return null;
+    }
 
-        byte[] bytes = Files.readAllBytes(outPath);
+    /**
+     * Publishes the shard results (same order as the leased tasks) and the spans recorded
+     * while running them, then drops the lease.
+     */
+    public void complete(ShardLease lease, List<DeviceResult> results, List<SpanEvent> spans) throws IOException {
+        lease.getRenewal().cancel(false);
+
+        Path done = root().resolve(lease.getJobId()).resolve(DONE);
+        // The spans come straight from the recorder's ring buffer; stamp copies, not the shared events.
+        Path trace = done.resolve(lease.getShardName() + "." + workerId + TRACE_SUFFIX);
+        Path traceTmp = done.resolve(lease.getShardName() + "." + workerId + TRACE_SUFFIX + ".tmp");
+        objectMapper.writeValue(traceTmp.toFile(),
+                spans.stream().map(s -> s.withNode(workerId)).collect(Collectors.toList()));
+        Files.move(traceTmp, trace, StandardCopyOption.ATOMIC_MOVE);
+
+        // The worker column tells collectSpans which trace belongs to the result that won the rename.
+        Path tmp = done.resolve(lease.getShardName() + "." + workerId + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8);
+             CSVPrinter printer = new CSVPrinter(writer,
+                     CSVFormat.DEFAULT.withHeader("index", "hostname", "command", "output", "worker"))) {
+            for (int i = 0; i < results.size(); i++) {
+                DeviceResult r = results.get(i);
+                printer.printRecord(lease.getTasks().get(i).getIndex(), r.getHostname(), r.getCommand(), r.getOutput(),
+                        workerId);
+            }
+        }
+        Files.move(tmp, done.resolve(lease.getShardName()), StandardCopyOption.ATOMIC_MOVE);
+        Files.deleteIfExists(lease.getLeasedFile());
+        log.debug("{} completed {}/{}", workerId, lease.getJobId(), lease.getShardName());
+    }
 
-        return ResponseEntity.ok()
-                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=results.csv")
-                .contentType(MediaType.APPLICATION_OCTET_STREAM)
-                .body(bytes);
+    /**
+     * Hands a shard back to pending, e.g. when this node failed while running it.
+     */
+    public void release(ShardLease lease) {
+        lease.getRenewal().cancel(false);
+        try {
+            Files.move(lease.getLeasedFile(), root().resolve(lease.getJobId()).resolve(PENDING).resolve(lease.getShardName()),
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            log.warn("Could not release {}/{}; it will be re-queued when the lease expires",
+                    lease.getJobId(), lease.getShardName(), ex);
+        }
     }
 
     /**
-     * For simple local files (paths) - process existing input file and write out.
+     * Moves shards whose lease was not renewed within the timeout back to pending.
      */
-    @PostMapping("/process-local")
-    public ResponseEntity<String> processLocal(@RequestParam String inputPath, @RequestParam String outputPath) throws Exception {
-        Path in = Paths.get(inputPath);
-        Path out = Paths.get(outputPath);
-        csvExecutionService.processCsv(in, out);
-        return ResponseEntity.ok("Processed. Output: " + out.toAbsolutePath());
+    public void reapExpiredLeases() throws IOException {
+        long cutoff = System.currentTimeMillis() - leaseTimeoutMs;
+        for (Path job : list(root())) {
+            if (!isJobDir(job)) continue;
+
+            for (Path leased : list(job.resolve(LEASED))) {
+                try {
+                    if (Files.getLastModifiedTime(leased).toMillis() >= cutoff) continue;
+                    Files.move(leased, job.resolve(PENDING).resolve(leased.getFileName()), StandardCopyOption.ATOMIC_MOVE);
+                    log.warn("Lease on {}/{} expired, re-queued", job.getFileName(), leased.getFileName());
+                } catch (NoSuchFileException e) {
+                    // completed or reaped by another node meanwhile
+                }
+            }
+        }
     }
-}
 
---- README.md ---
+    public boolean isComplete(String jobId) throws IOException {
+        Path job = root().resolve(jobId);
+        int shards = Integer.parseInt(Files.readString(job.resolve(SHARD_COUNT)).trim());
+        return doneShards(job).size() >= shards;
+    }
 
-# HPNA SSHJ CSV Executor (Spring Boot)
+    /**
+     * Merges all shard results of a job back into input order.
+     */
+    public List<DeviceResult> collect(String jobId) throws IOException {
+        SortedMap<Integer, DeviceResult> byIndex = new TreeMap<>();
+        for (Path shard : doneShards(root().resolve(jobId))) {
+            try (Reader in = Files.newBufferedReader(shard, StandardCharsets.UTF_8)) {
+                for (CSVRecord r : CSVFormat.DEFAULT.withFirstRecordAsHeader().parse(in)) {
+                    byIndex.put(Integer.parseInt(r.get("index")),
+                            new DeviceResult(r.get("hostname"), r.get("command"), r.get("output")));
+                }
+            }
+        }
+        return new ArrayList<>(byIndex.values());
+    }
 
-## Overview
-This Spring Boot application reads a CSV with `hostname,command` lines, connects to each device by first authenticating to HPNA jump server (port 8022) using SSH password, port-forwards to the device and executes the command. Results are written to `hostname,command,output` CSV.
+    /**
+     * Reads the span lists that nodes published with their shards. Only the trace of the worker whose
+     * result file is in {@code done/} is read, so a shard that ran twice is not counted twice. Tracing
+     * is diagnostics: a missing or unreadable trace file is logged and skipped.
+     */
+    public List<List<SpanEvent>> collectSpans(String jobId) throws IOException {
+        List<List<SpanEvent>> spans = new ArrayList<>();
+        for (Path shard : doneShards(root().resolve(jobId))) {
+            try {
+                String worker;
+                try (Reader in = Files.newBufferedReader(shard, StandardCharsets.UTF_8)) {
+                    Iterator<CSVRecord> records = CSVFormat.DEFAULT.withFirstRecordAsHeader().parse(in).iterator();
+                    if (!records.hasNext()) continue;
+                    worker = records.next().get("worker");
+                }
+                Path trace = shard.resolveSibling(shard.getFileName() + "." + worker + TRACE_SUFFIX);
+                spans.add(objectMapper.readValue(trace.toFile(), new TypeReference<List<SpanEvent>>() {}));
+            } catch (IOException | RuntimeException ex) {
+                log.warn("Skipping trace for {}/{}: {}", jobId, shard.getFileName(), ex.toString());
+            }
+        }
+        return spans;
+    }
 
-## Endpoints
-- `POST /api/upload-and-run` — multipart file upload (CSV). Returns output CSV as download.
-- `POST /api/process-local?inputPath=...&outputPath=...` — use local paths.
+    public void delete(String jobId) {
+        try (Stream<Path> paths = Files.walk(root().resolve(jobId))) {
+            for (Path p : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.deleteIfExists(p);
+            }
+        } catch (IOException ex) {
+            log.warn("Could not clean up {}", jobId, ex);
+        }
+    }
 
-## Notes / Security
-- This example stores HPNA and device credentials in `application.yml` for simplicity. For production, use a secret manager or environment variables.
-- Host key verification is disabled (`addHostKeyVerifier((...) -> true)`) for demo. Replace with proper host key checks.
-- Commands have a timeout (configurable). Adjust `ssh.command-timeout-sec` as needed.
+    public String getWorkerId() {
+        return workerId;
+    }
+
+    private void renew(ShardLease lease) {
+        try {
+            touch(lease.getLeasedFile());
+        } catch (IOException ex) {
+            log.warn("Lost lease on {}/{}", lease.getJobId(), lease.getShardName(), ex);
+            lease.getRenewal().cancel(false);
+        }
+    }
+
+    private Path root() {
+        return Paths.get(queueDir);
+    }
+
+    private static String shardName(int shard) {
+        return String.format("shard-%05d.csv", shard);
+    }
+
+    private static boolean isJobDir(Path p) {
+        String name = p.getFileName().toString();
+        return name.startsWith("job-") && !name.endsWith(".tmp") && Files.isDirectory(p);
+    }
+
+    private static void touch(Path p) throws IOException {
+        Files.setLastModifiedTime(p, FileTime.fromMillis(System.currentTimeMillis()));
+    }
+
+    private static List<Path> doneShards(Path job) throws IOException {
+        return list(job.resolve(DONE)).stream()
+                .filter(p -> p.getFileName().toString().endsWith(".csv"))
+                .collect(Collectors.toList());
+    }
+
+    /** Sorted directory listing; a directory removed by another node lists as empty. */
+    private static List<Path> list(Path dir) throws IOException {
+        try (Stream<Path> s = Files.list(dir)) {
+            return s.sorted().collect(Collectors.toList());
+        } catch (NoSuchFileException e) {
+            return Collections.emptyList();
+        }
+    }
+
+    private static void writeTasks(Path file, List<DeviceTask> tasks) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+             CSVPrinter printer = new CSVPrinter(writer, CSVFormat.DEFAULT.withHeader("index", "hostname", "command", "group"))) {
+            for (DeviceTask t : tasks) {
+                printer.printRecord(t.getIndex(), t.getHostname(), t.getCommand(), t.getGroup());
+            }
+        }
+    }
+
+    private static List<DeviceTask> readTasks(Path file) throws IOException {
+        List<DeviceTask> tasks = new ArrayList<>();
+        try (Reader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            for (CSVRecord r : CSVFormat.DEFAULT.withFirstRecordAsHeader().parse(in)) {
+                String group = r.get("group");
+                tasks.add(new DeviceTask(Integer.parseInt(r.get("index")), r.get("hostname"), r.get("command"),
+                        group.isEmpty() ? null : group));
+            }
+        }
+        return tasks;
+    }
+}
+
+--- src/main/java/com/example/hpna/cluster/ClusterWorker.java ---
+
+package com.example.hpna.cluster;
+
+import com.example.hpna.service.CsvExecutionService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+/**
+ * Polls the shared queue for shards while the application is running (cluster.role=worker).
+ */
+@Component
+@ConditionalOnProperty(name = "cluster.role", havingValue = "worker")
+public class ClusterWorker implements SmartLifecycle {
+
+    private static final Logger log = LoggerFactory.getLogger(ClusterWorker.class);
+
+    @Autowired
+    private CsvExecutionService csvExecutionService;
+
+    @Autowired
+    private FileShardQueue shardQueue;
+
+    @Value("${cluster.poll-interval-ms:1000}")
+    private long pollIntervalMs;
+
+    private volatile boolean running;
+    private Thread pollThread;
+
+    @Override
+    public void start() {
+        running = true;
+        pollThread = new Thread(this::pollLoop, "cluster-worker");
+        pollThread.start();
+        log.info("Cluster worker {} started", shardQueue.getWorkerId());
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        if (pollThread != null) pollThread.interrupt();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    private void pollLoop() {
+        while (running) {
+            try {
+                shardQueue.reapExpiredLeases();
+                if (!csvExecutionService.claimShardIfIdle()) {
+                    Thread.sleep(pollIntervalMs);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception ex) {
+                log.error("Shard processing failed", ex);
+                try {
+                    Thread.sleep(pollIntervalMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+}
+
+--- src/main/java/com/example/hpna/trace/SpanEvent.java ---
+
+package com.example.hpna.trace;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.With;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SpanEvent {
+    private long sequence;
+    @With
+    private String node;
+    private String runId;          // CSV run or cluster job the row belongs to
+    private int row;               // DeviceTask index within the run
+    private String host;
+    private String phase;
+    private String thread;
+    private long startMicros;      // epoch microseconds
+    private long durationMicros;
+}
+
+--- src/main/java/com/example/hpna/trace/TraceRecorder.java ---
+
+package com.example.hpna.trace;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Fixed-size ring buffer of phase spans. Recording is one allocation and one atomic
+ * increment, so it stays on for every run; when the buffer wraps the oldest spans are lost.
+ * Each span carries the run id and row index of the row the recording thread is working on,
+ * set with {@link #openRow}; spans recorded outside a row are kept out of every run.
+ */
+@Component
+public class TraceRecorder {
+
+    private static final Logger log = LoggerFactory.getLogger(TraceRecorder.class);
+
+    @Value("${trace.enabled:true}")
+    private boolean enabled;
+
+    @Value("${trace.buffer-size:65536}")
+    private int bufferSize;
+
+    private AtomicReferenceArray<SpanEvent> buffer;
+    private final AtomicLong next = new AtomicLong();
+
+    private final ThreadLocal<RowScope> currentRow = new ThreadLocal<>();
+
+    // nanoTime has no epoch, so spans are placed relative to this pair
+    private final long originNanos = System.nanoTime();
+    private final long originEpochMicros = System.currentTimeMillis() * 1000;
+
+    @PostConstruct
+    void init() {
+        buffer = new AtomicReferenceArray<>(bufferSize);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Position to pass to {@link #since} once the run is over.
+     */
+    public long mark() {
+        return next.get();
+    }
+
+    /**
+     * Attributes the spans this thread records to one row of one run until the scope is closed:
+     * {@code try (TraceRecorder.RowScope row = recorder.openRow(runId, index)) { ... }}
+     */
+    public RowScope openRow(String runId, int row) {
+        RowScope scope = new RowScope(runId, row);
+        currentRow.set(scope);
+        return scope;
+    }
+
+    /**
+     * Records a span from startNanos until now and returns now, so consecutive phases
+     * can be chained: {@code t = recorder.phase(host, "auth", t);}
+     */
+    public long phase(String host, String phase, long startNanos) {
+        long end = System.nanoTime();
+        RowScope row = currentRow.get();
+        if (enabled && row != null) {
+            long seq = next.getAndIncrement();
+            buffer.set((int) (seq % bufferSize), new SpanEvent(seq, "local", row.runId, row.row, host, phase,
+                    Thread.currentThread().getName(),
+                    originEpochMicros + (startNanos - originNanos) / 1000,
+                    (end - startNanos) / 1000));
+        }
+        return end;
+    }
+
+    /**
+     * Spans of the given run recorded after mark. Concurrent runs share the buffer and are
+     * told apart by run id.
+     */
+    public List<SpanEvent> since(long mark, String runId) {
+        long end = next.get();
+        long from = Math.max(mark, end - bufferSize);
+        if (from > mark) {
+            log.warn("Trace buffer wrapped, {} spans lost; raise trace.buffer-size", from - mark);
+        }
+
+        List<SpanEvent> spans = new ArrayList<>();
+        for (long seq = from; seq < end; seq++) {
+            SpanEvent e = buffer.get((int) (seq % bufferSize));
+            // null or newer sequence: slot not yet written or already reused
+            if (e != null && e.getSequence() == seq && runId.equals(e.getRunId())) {
+                spans.add(e);
+            }
+        }
+        return spans;
+    }
+
+    public final class RowScope implements AutoCloseable {
+        private final String runId;
+        private final int row;
+
+        private RowScope(String runId, int row) {
+            this.runId = runId;
+            this.row = row;
+        }
+
+        @Override
+        public void close() {
+            currentRow.remove();
+        }
+    }
+}
+
+--- src/main/java/com/example/hpna/trace/TraceExporter.java ---
+
+package com.example.hpna.trace;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Writes the spans of a run next to its output CSV:
+ * {@code <output>.trace.json} in Chrome trace format (open in chrome://tracing or Perfetto) and
+ * {@code <output>.trace-summary.txt} with per-phase percentiles, the slowest rows and a tail breakdown.
+ */
+@Component
+public class TraceExporter {
+
+    private static final Logger log = LoggerFactory.getLogger(TraceExporter.class);
+
+    // total time per row, recorded by CsvExecutionService around each task
+    private static final String ROW = "row";
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${trace.slowest-rows:20}")
+    private int slowestRows;
+
+    public void export(List<SpanEvent> spans, Path outputPath) throws IOException {
+        Path tracePath = outputPath.resolveSibling(outputPath.getFileName() + ".trace.json");
+        Path summaryPath = outputPath.resolveSibling(outputPath.getFileName() + ".trace-summary.txt");
+
+        objectMapper.writeValue(tracePath.toFile(), toChromeTrace(spans));
+        try (PrintWriter w = new PrintWriter(Files.newBufferedWriter(summaryPath, StandardCharsets.UTF_8))) {
+            writeSummary(spans, w);
+        }
+        log.info("Wrote {} spans to {} and {}", spans.size(), tracePath, summaryPath);
+    }
+
+    /**
+     * One process per node and one thread lane per executor thread, complete ("X") events per span.
+     */
+    private ObjectNode toChromeTrace(List<SpanEvent> spans) {
+        ObjectNode root = objectMapper.createObjectNode();
+        ArrayNode events = root.putArray("traceEvents");
+        Map<String, Integer> pids = new LinkedHashMap<>();
+        Map<String, Integer> tids = new LinkedHashMap<>();
+
+        for (SpanEvent s : spans) {
+            int pid = pids.computeIfAbsent(s.getNode(), n -> {
+                int id = pids.size() + 1;
+                events.add(metadata("process_name", id, 0, n));
+                return id;
+            });
+            int tid = tids.computeIfAbsent(s.getNode() + "/" + s.getThread(), n -> {
+                int id = tids.size() + 1;
+                events.add(metadata("thread_name", pid, id, s.getThread()));
+                return id;
+            });
+
+            ObjectNode e = events.addObject();
+            e.put("name", s.getPhase());
+            e.put("cat", "ssh");
+            e.put("ph", "X");
+            e.put("ts", s.getStartMicros());
+            e.put("dur", s.getDurationMicros());
+            e.put("pid", pid);
+            e.put("tid", tid);
+            e.putObject("args").put("host", s.getHost()).put("row", s.getRow());
+        }
+        root.put("displayTimeUnit", "ms");
+        return root;
+    }
+
+    private ObjectNode metadata(String name, int pid, int tid, String value) {
+        ObjectNode e = objectMapper.createObjectNode();
+        e.put("name", name);
+        e.put("ph", "M");
+        e.put("pid", pid);
+        e.put("tid", tid);
+        e.putObject("args").put("name", value);
+        return e;
+    }
+
+    private void writeSummary(List<SpanEvent> spans, PrintWriter w) {
+        if (spans.isEmpty()) {
+            w.println("No spans recorded.");
+            return;
+        }
+
+        long first = spans.stream().mapToLong(SpanEvent::getStartMicros).min().getAsLong();
+        long last = spans.stream().mapToLong(s -> s.getStartMicros() + s.getDurationMicros()).max().getAsLong();
+        List<SpanEvent> rows = spans.stream().filter(s -> ROW.equals(s.getPhase())).collect(Collectors.toList());
+
+        w.printf("Rows: %d   spans: %d   nodes: %d   wall clock: %.1f s%n%n", rows.size(), spans.size(),
+                spans.stream().map(SpanEvent::getNode).distinct().count(), (last - first) / 1e6);
+
+        // per phase
+        Map<String, List<SpanEvent>> byPhase = spans.stream()
+                .collect(Collectors.groupingBy(SpanEvent::getPhase, LinkedHashMap::new, Collectors.toList()));
+        w.println("Phase latency (ms)");
+        w.printf("%-16s %7s %11s %9s %9s %9s %9s%n", "phase", "count", "total", "p50", "p90", "p99", "max");
+        byPhase.forEach((phase, list) -> {
+            long[] d = sortedDurations(list);
+            w.printf("%-16s %7d %11.0f %9.1f %9.1f %9.1f %9.1f%n", phase, d.length, sum(d) / 1e3,
+                    percentile(d, 50) / 1e3, percentile(d, 90) / 1e3, percentile(d, 99) / 1e3, d[d.length - 1] / 1e3);
+        });
+
+        // per row: sum of each phase, ordered by row time
+        Map<String, Map<String, Long>> byRow = new HashMap<>();
+        Map<String, String> rowHosts = new HashMap<>();
+        for (SpanEvent s : spans) {
+            byRow.computeIfAbsent(rowKey(s), k -> new TreeMap<>()).merge(s.getPhase(), s.getDurationMicros(), Long::sum);
+            rowHosts.putIfAbsent(rowKey(s), "#" + s.getRow() + " " + s.getHost());
+        }
+        List<Map.Entry<String, Map<String, Long>>> sortedRows = new ArrayList<>(byRow.entrySet());
+        sortedRows.sort(Comparator.comparingLong((Map.Entry<String, Map<String, Long>> e) -> rowTotal(e.getValue())).reversed());
+
+        w.printf("%nSlowest %d rows (ms)%n", Math.min(slowestRows, sortedRows.size()));
+        for (Map.Entry<String, Map<String, Long>> e : sortedRows.subList(0, Math.min(slowestRows, sortedRows.size()))) {
+            w.printf("%-36s %9.0f ", rowHosts.get(e.getKey()), rowTotal(e.getValue()) / 1e3);
+            e.getValue().forEach((phase, us) -> {
+                if (!ROW.equals(phase)) w.printf(" %s=%.0f", phase, us / 1e3);
+            });
+            w.println();
+        }
+
+        // tail: where the time of rows above p99 went, compared with all rows
+        if (!rows.isEmpty()) {
+            long[] rowDurations = sortedDurations(rows);
+            long p99 = percentile(rowDurations, 99);
+            Set<String> tailRows = rows.stream().filter(r -> r.getDurationMicros() >= p99)
+                    .map(TraceExporter::rowKey).collect(Collectors.toSet());
+
+            w.printf("%nTail latency: %d rows at or above p99 (%.1f ms); p50 %.1f ms, p99.9 %.1f ms%n",
+                    tailRows.size(), p99 / 1e3, percentile(rowDurations, 50) / 1e3, percentile(rowDurations, 99.9) / 1e3);
+            w.printf("%-16s %10s %10s%n", "phase", "tail %", "all %");
+            Map<String, Long> tailByPhase = phaseTotals(spans.stream().filter(s -> tailRows.contains(rowKey(s))));
+            Map<String, Long> allByPhase = phaseTotals(spans.stream());
+            long tailSum = tailByPhase.values().stream().mapToLong(Long::longValue).sum();
+            long allSum = allByPhase.values().stream().mapToLong(Long::longValue).sum();
+            allByPhase.forEach((phase, us) -> w.printf("%-16s %9.1f%% %9.1f%%%n", phase,
+                    tailSum == 0 ? 0 : 100.0 * tailByPhase.getOrDefault(phase, 0L) / tailSum, 100.0 * us / allSum));
+        }
+    }
+
+    private static String rowKey(SpanEvent s) {
+        return s.getRunId() + "#" + s.getRow();
+    }
+
+    private static long rowTotal(Map<String, Long> phases) {
+        Long row = phases.get(ROW);
+        return row != null ? row : phases.values().stream().mapToLong(Long::longValue).sum();
+    }
+
+    private static Map<String, Long> phaseTotals(Stream<SpanEvent> spans) {
+        return spans.filter(s -> !ROW.equals(s.getPhase()))
+                .collect(Collectors.groupingBy(SpanEvent::getPhase, TreeMap::new, Collectors.summingLong(SpanEvent::getDurationMicros)));
+    }
+
+    private static long[] sortedDurations(List<SpanEvent> spans) {
+        long[] d = spans.stream().mapToLong(SpanEvent::getDurationMicros).toArray();
+        Arrays.sort(d);
+        return d;
+    }
+
+    private static long sum(long[] d) {
+        long s = 0;
+        for (long v : d) s += v;
+        return s;
+    }
+
+    // nearest-rank percentile of a sorted array
+    private static long percentile(long[] sorted, double p) {
+        int rank = (int) Math.ceil(p / 100.0 * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+    }
+}
+
+--- src/main/java/com/example/hpna/ratelimit/TokenBucket.java ---
+
+package com.example.hpna.ratelimit;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket that lets callers go into debt: a caller takes its token right away and
+ * sleeps until the bucket would have refilled it. Waiting callers are therefore served
+ * in arrival order and the long-run rate never exceeds ratePerSec.
+ */
+public class TokenBucket {
+
+    private final double ratePerSec;
+    private final double burst;
+
+    private double tokens;
+    private long lastRefillNanos = System.nanoTime();
+
+    public TokenBucket(double ratePerSec, double burst) {
+        this.ratePerSec = ratePerSec;
+        this.burst = Math.max(1, burst);
+        this.tokens = this.burst;
+    }
+
+    /**
+     * Takes one token, blocking until it is available.
+     */
+    public void acquire() throws InterruptedException {
+        long waitNanos = reserve();
+        if (waitNanos > 0) TimeUnit.NANOSECONDS.sleep(waitNanos);
+    }
+
+    private synchronized long reserve() {
+        long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - lastRefillNanos) / 1e9 * ratePerSec);
+        lastRefillNanos = now;
+
+        tokens -= 1;
+        return tokens >= 0 ? 0 : (long) (-tokens / ratePerSec * 1e9);
+    }
+}
+
+--- src/main/java/com/example/hpna/ratelimit/LoginRateLimiter.java ---
+
+package com.example.hpna.ratelimit;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Paces new SSH logins so parallel rows do not trip AAA/TACACS throttling.
+ * Three levels apply to every row: all logins of this instance, logins per jump server,
+ * and logins per device group. The group comes from the CSV group column when present,
+ * else from rate-limit.group-pattern (capture group 1) applied to the hostname; IP literals
+ * never match the pattern. Off unless rate-limit.enabled is set, and without a group column
+ * or pattern there is no group level. A rate of 0 disables that level.
+ * <p>
+ * Buckets live in this JVM only. In cluster mode every worker paces itself, so the configured
+ * rates are split by rate-limit.instances to keep the total near the configured numbers.
+ */
+@Component
+public class LoginRateLimiter {
+
+    private static final Logger log = LoggerFactory.getLogger(LoginRateLimiter.class);
+
+    // IPv4 dotted quad or anything with a colon (IPv6)
+    private static final Pattern IP_LITERAL = Pattern.compile("^\\d{1,3}(\\.\\d{1,3}){3}$|:");
+
+    @Value("${rate-limit.enabled:false}")
+    private boolean enabled;
+
+    @Value("${rate-limit.global-logins-per-sec:10}")
+    private double globalRate;
+
+    @Value("${rate-limit.global-burst:10}")
+    private double globalBurst;
+
+    @Value("${rate-limit.jump-logins-per-sec:5}")
+    private double jumpRate;
+
+    @Value("${rate-limit.jump-burst:5}")
+    private double jumpBurst;
+
+    @Value("${rate-limit.group-logins-per-sec:2}")
+    private double groupRate;
+
+    @Value("${rate-limit.group-burst:2}")
+    private double groupBurst;
+
+    @Value("${rate-limit.group-pattern:}")
+    private String groupPattern;
+
+    @Value("${rate-limit.instances:1}")
+    private int instances;
+
+    private TokenBucket global;
+    private Pattern groupRegex;
+    private final Map<String, TokenBucket> jumpBuckets = new ConcurrentHashMap<>();
+    private final Map<String, TokenBucket> groupBuckets = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    void init() {
+        if (instances > 1) {
+            globalRate /= instances;
+            jumpRate /= instances;
+            groupRate /= instances;
+            // a burst below one token would never let a login through
+            globalBurst = Math.max(1, globalBurst / instances);
+            jumpBurst = Math.max(1, jumpBurst / instances);
+            groupBurst = Math.max(1, groupBurst / instances);
+        }
+        if (globalRate > 0) global = new TokenBucket(globalRate, globalBurst);
+        if (groupPattern != null && !groupPattern.isBlank()) groupRegex = Pattern.compile(groupPattern);
+        log.info("Login rate limits for this instance (configured rates split over {}): enabled={} global={}/s jump={}/s group={}/s pattern={}",
+                Math.max(1, instances), enabled, globalRate, jumpRate, groupRate, groupRegex == null ? "none" : groupPattern);
+    }
+
+    /**
+     * Blocks until a login to deviceHost through jumpServer is allowed at every level.
+     * The most specific level is taken first so a busy group does not hold global tokens.
+     */
+    public void acquireLogin(String jumpServer, String deviceHost, String group) throws InterruptedException {
+        if (!enabled) return;
+
+        String groupKey = groupOf(deviceHost, group);
+        if (groupRate > 0 && groupKey != null) {
+            groupBuckets.computeIfAbsent(groupKey, k -> new TokenBucket(groupRate, groupBurst)).acquire();
+        }
+        if (jumpRate > 0) {
+            jumpBuckets.computeIfAbsent(jumpServer, k -> new TokenBucket(jumpRate, jumpBurst)).acquire();
+        }
+        if (global != null) {
+            global.acquire();
+        }
+    }
+
+    private String groupOf(String deviceHost, String group) {
+        if (group != null && !group.isBlank()) return group;
+        if (groupRegex == null || IP_LITERAL.matcher(deviceHost).find()) return null;
+
+        Matcher m = groupRegex.matcher(deviceHost);
+        return m.find() ? (m.groupCount() > 0 ? m.group(1) : m.group()) : null;
+    }
+}
+
+--- src/main/java/com/example/hpna/ssh/CachingHostKeyVerifier.java ---
+
+package com.example.hpna.ssh;
+
+import net.schmizz.sshj.common.Buffer;
+import net.schmizz.sshj.common.KeyType;
+import net.schmizz.sshj.transport.verification.HostKeyVerifier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.PublicKey;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * known_hosts kept in memory: lookups are one map read, so verification costs nothing
+ * at high concurrency. Hosts learned under the accept-new policy are appended to the file
+ * on a background thread. Hashed (|1|) and marker (@) lines are not supported and skipped.
+ */
+public class CachingHostKeyVerifier implements HostKeyVerifier {
+
+    private static final Logger log = LoggerFactory.getLogger(CachingHostKeyVerifier.class);
+
+    public enum Policy { STRICT, ACCEPT_NEW, OFF }
+
+    private final Path knownHostsFile;
+    private final Policy policy;
+
+    // "host" or "[host]:port" -> key type -> base64 key
+    private final ConcurrentMap<String, Map<String, String>> knownHosts = new ConcurrentHashMap<>();
+
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "known-hosts-writer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public CachingHostKeyVerifier(Path knownHostsFile, Policy policy) throws IOException {
+        this.knownHostsFile = knownHostsFile;
+        this.policy = policy;
+        load();
+    }
+
+    @Override
+    public boolean verify(String hostname, int port, PublicKey key) {
+        if (policy == Policy.OFF) return true;
+
+        String host = entryName(hostname, port);
+        String type = KeyType.fromKey(key).toString();
+        String encoded = Base64.getEncoder().encodeToString(new Buffer.PlainBuffer().putPublicKey(key).getCompactData());
+
+        boolean[] added = {false};
+        Map<String, String> keys = knownHosts.computeIfAbsent(host, h -> {
+            if (policy != Policy.ACCEPT_NEW) return null;
+            added[0] = true;
+            return new ConcurrentHashMap<>(Map.of(type, encoded));
+        });
+
+        if (keys == null) {
+            log.error("Host key for {} is not in {} (policy {})", host, knownHostsFile, policy);
+            return false;
+        }
+        if (added[0]) {
+            log.info("Learned {} host key for {}", type, host);
+            persist(host + " " + type + " " + encoded);
+            return true;
+        }
+        if (!encoded.equals(keys.get(type))) {
+            log.error("HOST KEY MISMATCH for {} ({}); known types {}. Refusing to connect.", host, type, keys.keySet());
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public List<String> findExistingAlgorithms(String hostname, int port) {
+        Map<String, String> keys = knownHosts.get(entryName(hostname, port));
+        return keys == null ? Collections.emptyList() : new ArrayList<>(keys.keySet());
+    }
+
+    /**
+     * Verifier for a host reached through a local port forward, where the client only sees
+     * 127.0.0.1 and a random port.
+     */
+    public HostKeyVerifier forHost(String hostname, int port) {
+        return new HostKeyVerifier() {
+            @Override
+            public boolean verify(String h, int p, PublicKey key) {
+                return CachingHostKeyVerifier.this.verify(hostname, port, key);
+            }
+
+            @Override
+            public List<String> findExistingAlgorithms(String h, int p) {
+                return CachingHostKeyVerifier.this.findExistingAlgorithms(hostname, port);
+            }
+        };
+    }
+
+    /**
+     * Stops the writer after the queued appends are flushed, waiting at most a few seconds so a
+     * stuck filesystem cannot hold up shutdown.
+     */
+    public void close() {
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(5, TimeUnit.SECONDS)) {
+                log.warn("Timed out flushing {}; newly accepted host keys may not have been saved", knownHostsFile);
+                writer.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            writer.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void load() throws IOException {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(knownHostsFile, StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            log.info("No known_hosts at {} yet", knownHostsFile);
+            return;
+        }
+
+        int skipped = 0;
+        for (String line : lines) {
+            String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("#")) continue;
+            String[] parts = trimmed.split("\\s+");
+            if (parts.length < 3 || parts[0].startsWith("|") || parts[0].startsWith("@")) {
+                skipped++;
+                continue;
+            }
+            for (String host : parts[0].split(",")) {
+                knownHosts.computeIfAbsent(host, h -> new ConcurrentHashMap<>()).put(parts[1], parts[2]);
+            }
+        }
+        log.info("Loaded {} known hosts from {} ({} unsupported lines skipped)", knownHosts.size(), knownHostsFile, skipped);
+    }
+
+    private void persist(String line) {
+        writer.execute(() -> {
+            try {
+                Path parent = knownHostsFile.toAbsolutePath().getParent();
+                if (parent != null) Files.createDirectories(parent);
+                Files.writeString(knownHostsFile, line + System.lineSeparator(), StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            } catch (IOException ex) {
+                log.warn("Could not append to {}", knownHostsFile, ex);
+            }
+        });
+    }
+
+    private static String entryName(String hostname, int port) {
+        return port == 22 ? hostname : "[" + hostname + "]:" + port;
+    }
+}
+
+--- src/main/java/com/example/hpna/ssh/SshClientFactory.java ---
+
+package com.example.hpna.ssh;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import net.schmizz.sshj.DefaultConfig;
+import net.schmizz.sshj.SSHClient;
+import net.schmizz.sshj.common.Factory;
+import net.schmizz.sshj.transport.verification.HostKeyVerifier;
+import net.schmizz.sshj.userauth.keyprovider.KeyProvider;
+import net.schmizz.sshj.userauth.method.AuthMethod;
+import net.schmizz.sshj.userauth.method.AuthPassword;
+import net.schmizz.sshj.userauth.method.AuthPublickey;
+import net.schmizz.sshj.userauth.password.PasswordUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Builds SSHClients from one shared, pre-sorted Config instead of a fresh DefaultConfig
+ * (provider lookup and algorithm list construction) per connection. Also owns the shared
+ * host key verifier and the parsed private keys, which are loaded once and reused.
+ */
+@Component
+public class SshClientFactory {
+
+    private static final Logger log = LoggerFactory.getLogger(SshClientFactory.class);
+
+    @Value("${ssh.connect-timeout-ms:15000}")
+    private int connectTimeoutMs;
+
+    @Value("${ssh.ciphers:aes128-gcm@openssh.com,aes256-gcm@openssh.com,aes128-ctr,aes256-ctr}")
+    private List<String> preferredCiphers;
+
+    @Value("${ssh.kex:curve25519-sha256,curve25519-sha256@libssh.org,ecdh-sha2-nistp256,diffie-hellman-group14-sha256}")
+    private List<String> preferredKex;
+
+    @Value("${ssh.known-hosts:${user.home}/.ssh/hpna_known_hosts}")
+    private String knownHostsPath;
+
+    @Value("${ssh.host-key-policy:accept-new}")
+    private String hostKeyPolicy;
+
+    private DefaultConfig config;
+    private CachingHostKeyVerifier hostKeyVerifier;
+    private final Map<String, KeyProvider> keys = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    void init() throws IOException {
+        config = new DefaultConfig();
+        config.setCipherFactories(preferFirst(config.getCipherFactories(), preferredCiphers));
+        config.setKeyExchangeFactories(preferFirst(config.getKeyExchangeFactories(), preferredKex));
+
+        hostKeyVerifier = new CachingHostKeyVerifier(Paths.get(knownHostsPath),
+                CachingHostKeyVerifier.Policy.valueOf(hostKeyPolicy.trim().toUpperCase().replace('-', '_')));
+
+        log.info("SSH config: ciphers {} kex {} host keys {} ({})",
+                Factory.Named.Util.getNames(config.getCipherFactories()),
+                Factory.Named.Util.getNames(config.getKeyExchangeFactories()), knownHostsPath, hostKeyPolicy);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        hostKeyVerifier.close();
+    }
+
+    public SSHClient newClient() {
+        SSHClient client = new SSHClient(config);
+        client.setConnectTimeout(connectTimeoutMs);
+        return client;
+    }
+
+    /**
+     * Verifier for hostname:port, also when the client actually connects to a local forward.
+     */
+    public HostKeyVerifier hostKeyVerifier(String hostname, int port) {
+        return hostKeyVerifier.forHost(hostname, port);
+    }
+
+    /**
+     * Public key auth when keyPath is set (falling back to the password if one is configured),
+     * password auth otherwise.
+     */
+    public void authenticate(SSHClient client, String user, String password, String keyPath) throws IOException {
+        List<AuthMethod> methods = new ArrayList<>();
+        if (keyPath != null && !keyPath.isBlank()) {
+            methods.add(new AuthPublickey(keys.get(keyPath)));
+        }
+        if (password != null && !password.isEmpty()) {
+            methods.add(new AuthPassword(PasswordUtils.createOneOff(password.toCharArray())));
+        }
+        client.auth(user, methods);
+    }
+
+    /**
+     * Parses a private key once at startup so every connection reuses the same key pair.
+     */
+    public void preloadKey(String keyPath, String passphrase) throws IOException {
+        if (keyPath == null || keyPath.isBlank() || keys.containsKey(keyPath)) return;
+
+        try (SSHClient loader = newClient()) {
+            KeyProvider kp = (passphrase == null || passphrase.isEmpty())
+                    ? loader.loadKeys(keyPath)
+                    : loader.loadKeys(keyPath, passphrase);
+            kp.getPrivate(); // force parsing now; the provider caches the result
+            keys.put(keyPath, kp);
+            log.info("Loaded {} key from {}", kp.getType(), keyPath);
+        }
+    }
+
+    /**
+     * Puts the preferred algorithms first in the given order and keeps the rest as fallback.
+     */
+    private static <T extends Factory.Named<?>> List<T> preferFirst(List<T> factories, List<String> preferred) {
+        List<T> sorted = new ArrayList<>();
+        for (String name : preferred) {
+            factories.stream().filter(f -> f.getName().equals(name.trim())).findFirst().ifPresent(sorted::add);
+        }
+        factories.stream().filter(f -> !sorted.contains(f)).forEach(sorted::add);
+        return sorted;
+    }
+}
+
+--- src/main/java/com/example/hpna/controller/ApiController.java ---
+
+package com.example.hpna.controller;
+
+import com.example.hpna.service.CsvExecutionService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+@RestController
+@RequestMapping("/api")
+public class ApiController {
+
+    private static final Logger log = LoggerFactory.getLogger(ApiController.class);
+
+    @Autowired
+    private CsvExecutionService csvExecutionService;
+
+    @Value("${csv.input-temp-dir:/tmp/hpna-input}")
+    private String inputTempDir;
+
+    @Value("${csv.output-temp-dir:/tmp/hpna-output}")
+    private String outputTempDir;
+
+    /**
+     * Upload CSV (multipart) and process it. Returns the output CSV as download.
+     * Input CSV must have header: hostname,command
+     */
+    @PostMapping(value = "/upload-and-run", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<byte[]> uploadAndRun(@RequestParam("file") MultipartFile file) throws Exception {
+        Files.createDirectories(Paths.get(inputTempDir));
+        Files.createDirectories(Paths.get(outputTempDir));
+
+        Path inPath = Paths.get(inputTempDir).resolve(System.currentTimeMillis() + "-input.csv");
+        Path outPath = Paths.get(outputTempDir).resolve(System.currentTimeMillis() + "-output.csv");
+
+        Files.copy(file.getInputStream(), inPath);
+
+        log.info("Saved uploaded CSV to {}", inPath);
+
+        csvExecutionService.processCsv(inPath, outPath);
+
+        byte[] bytes = Files.readAllBytes(outPath);
+
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=results.csv")
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .body(bytes);
+    }
+
+    /**
+     * For simple local files (paths) - process existing input file and write out.
+     */
+    @PostMapping("/process-local")
+    public ResponseEntity<String> processLocal(@RequestParam String inputPath, @RequestParam String outputPath) throws Exception {
+        Path in = Paths.get(inputPath);
+        Path out = Paths.get(outputPath);
+        csvExecutionService.processCsv(in, out);
+        return ResponseEntity.ok("Processed. Output: " + out.toAbsolutePath());
+    }
+}
+
+--- src/main/java/com/example/hpna/config/NmsWebClientConfig.java ---
+
+package com.example.hpna.config;
+
+import io.netty.channel.ChannelOption;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
+
+/**
+ * One WebClient per NMS backend, each with its own connection pool so a slow tool
+ * cannot take the connections of the other two.
+ */
+@Configuration
+public class NmsWebClientConfig {
+
+    @Value("${nms.connect-timeout-ms:5000}")
+    private int connectTimeoutMs;
+
+    @Value("${nms.request-timeout-ms:6000}")
+    private long requestTimeoutMs;
+
+    @Value("${nms.pending-acquire-max:2000}")
+    private int pendingAcquireMax;
+
+    @Bean(name = "hpnaWebClient")
+    public WebClient hpnaWebClient(@Value("${nms.hpna.max-connections:200}") int maxConnections) {
+        return build("hpna", maxConnections);
+    }
+
+    @Bean(name = "nnmWebClient")
+    public WebClient nnmWebClient(@Value("${nms.nnm.max-connections:200}") int maxConnections) {
+        return build("nnm", maxConnections);
+    }
+
+    @Bean(name = "sevoneWebClient")
+    public WebClient sevoneWebClient(@Value("${nms.sevone.max-connections:200}") int maxConnections) {
+        return build("sevone", maxConnections);
+    }
+
+    private WebClient build(String name, int maxConnections) {
+        ConnectionProvider pool = ConnectionProvider.builder(name)
+                .maxConnections(maxConnections)
+                .pendingAcquireMaxCount(pendingAcquireMax)
+                .pendingAcquireTimeout(Duration.ofMillis(requestTimeoutMs))
+                .maxIdleTime(Duration.ofSeconds(30))
+                .build();
+
+        HttpClient http = HttpClient.create(pool)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectTimeoutMs)
+                .responseTimeout(Duration.ofMillis(requestTimeoutMs));
+
+        return WebClient.builder()
+                .clientConnector(new ReactorClientHttpConnector(http))
+                .defaultHeader(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON_VALUE)
+                .build();
+    }
+}
+
+--- src/main/java/com/example/hpna/service/NmsStatusService.java ---
+
+package com.example.hpna.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Non-blocking version of AggregatorServlet: asks HPNA, NNM and SevOne for a host's status
+ * in parallel and builds the same JSON document. Nothing here blocks, so the work runs on
+ * the WebClient event loop and no request thread waits for the backends.
+ */
+@Service
+public class NmsStatusService {
+
+    @Autowired
+    @Qualifier("hpnaWebClient")
+    private WebClient hpnaClient;
+
+    @Autowired
+    @Qualifier("nnmWebClient")
+    private WebClient nnmClient;
+
+    @Autowired
+    @Qualifier("sevoneWebClient")
+    private WebClient sevoneClient;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${nms.hpna.api:https://hpna.example.com/api/status?host=}")
+    private String hpnaApi;
+
+    @Value("${nms.nnm.api:https://nnm.example.com/api/deviceStatus?host=}")
+    private String nnmApi;
+
+    @Value("${nms.sevone.api:https://sevone.example.com/api/check?host=}")
+    private String sevoneApi;
+
+    @Value("${nms.overall-timeout-ms:8000}")
+    private long overallTimeoutMs;
+
+    /**
+     * Emits {host, hpna, nnm, sevone, meta} or fails with TimeoutException when the
+     * backends together take longer than nms.overall-timeout-ms.
+     */
+    public Mono<Map<String, Object>> status(String host) {
+        Mono<String> hpna = fetch(hpnaClient, hpnaApi, host, "status", Set.of("up", "reachable"));
+        Mono<String> nnm = fetch(nnmClient, nnmApi, host, "deviceState", Set.of("up", "managed"));
+        Mono<String> sevone = fetch(sevoneClient, sevoneApi, host, "status", Set.of("ok", "up"));
+
+        return Mono.zip(hpna, nnm, sevone)
+                .timeout(Duration.ofMillis(overallTimeoutMs))
+                .map(t -> {
+                    Map<String, Object> out = new LinkedHashMap<>();
+                    out.put("host", host);
+                    out.put("hpna", t.getT1());
+                    out.put("nnm", t.getT2());
+                    out.put("sevone", t.getT3());
+                    out.put("meta", Map.of("hpna_checked_at", Instant.now().toString()));
+                    return out;
+                });
+    }
+
+    /**
+     * UP when stateField holds one of upValues, DOWN for any other value, UNKNOWN for
+     * non-200 responses or unparsable bodies. Transport errors are passed on.
+     */
+    private Mono<String> fetch(WebClient client, String api, String host, String stateField, Set<String> upValues) {
+        return client.get()
+                .uri(api + "{host}", host)
+                .exchangeToMono(resp -> resp.statusCode().value() != 200
+                        ? resp.releaseBody().thenReturn("UNKNOWN")
+                        : resp.bodyToMono(String.class).defaultIfEmpty("").map(body -> parse(body, stateField, upValues)));
+    }
+
+    private String parse(String body, String stateField, Set<String> upValues) {
+        try {
+            JsonNode state = objectMapper.readTree(body).get(stateField);
+            if (state == null || state.isNull()) return "UNKNOWN";
+            return upValues.contains(state.asText().toLowerCase()) ? "UP" : "DOWN";
+        } catch (Exception e) {
+            return "UNKNOWN";
+        }
+    }
+}
+
+--- src/main/java/com/example/hpna/controller/NmsStatusController.java ---
+
+package com.example.hpna.controller;
+
+import com.example.hpna.service.NmsStatusService;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
+
+@RestController
+@RequestMapping("/api/nms")
+public class NmsStatusController {
+
+    private static final Logger log = LoggerFactory.getLogger(NmsStatusController.class);
+
+    @Autowired
+    private NmsStatusService nmsStatusService;
+
+    @Value("${nms.bulk-concurrency:256}")
+    private int bulkConcurrency;
+
+    @Value("${nms.bulk-max-hosts:5000}")
+    private int bulkMaxHosts;
+
+    @Value("${nms.overall-timeout-ms:8000}")
+    private long overallTimeoutMs;
+
+    @Value("${spring.mvc.async.request-timeout:30s}")
+    private Duration asyncRequestTimeout;
+
+    /**
+     * Every host finishes within nms.overall-timeout-ms, so a full bulk request takes at most
+     * ceil(bulk-max-hosts / bulk-concurrency) rounds; warn when the async timeout would cut it off.
+     */
+    @PostConstruct
+    void checkBulkBudget() {
+        long rounds = (bulkMaxHosts + bulkConcurrency - 1) / bulkConcurrency;
+        Duration worstCase = Duration.ofMillis(rounds * overallTimeoutMs);
+        if (worstCase.compareTo(asyncRequestTimeout) > 0) {
+            log.warn("Bulk status of {} hosts may take {}s, longer than spring.mvc.async.request-timeout {}s",
+                    bulkMaxHosts, worstCase.toSeconds(), asyncRequestTimeout.toSeconds());
+        }
+    }
+
+    /**
+     * Same contract as AggregatorServlet: 200 with the status document, 400 without host,
+     * 504 on timeout, 500 with the error message otherwise.
+     */
+    @GetMapping(value = "/status", produces = MediaType.APPLICATION_JSON_VALUE)
+    public Mono<ResponseEntity<Map<String, Object>>> status(@RequestParam(required = false) String host) {
+        if (host == null || host.isBlank()) {
+            return Mono.just(ResponseEntity.badRequest().body(Map.<String, Object>of("error", "missing host parameter")));
+        }
+        return nmsStatusService.status(host)
+                .map(ResponseEntity::ok)
+                .onErrorResume(TimeoutException.class, e -> Mono.just(ResponseEntity.status(HttpStatus.GATEWAY_TIMEOUT)
+                        .body(Map.<String, Object>of("error", "timeout contacting NMS tools"))))
+                .onErrorResume(e -> Mono.just(ResponseEntity.internalServerError()
+                        .body(Map.<String, Object>of("error", String.valueOf(e.getMessage())))));
+    }
+
+    /**
+     * Checks many hosts and streams one status document per line (NDJSON) as soon as it is ready,
+     * with at most nms.bulk-concurrency hosts in flight. A failed host yields {host, error}.
+     * Lists longer than nms.bulk-max-hosts are rejected with 400.
+     */
+    @PostMapping(value = "/status/bulk", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<Map<String, Object>> bulk(@RequestBody List<String> hosts) {
+        if (hosts.size() > bulkMaxHosts) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "at most " + bulkMaxHosts + " hosts per bulk request, got " + hosts.size());
+        }
+        return Flux.fromIterable(hosts)
+                .filter(h -> h != null && !h.isBlank())
+                .flatMap(h -> nmsStatusService.status(h).onErrorResume(e -> Mono.just(error(h, e))), bulkConcurrency);
+    }
+
+    private static Map<String, Object> error(String host, Throwable e) {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("host", host);
+        out.put("error", e instanceof TimeoutException ? "timeout contacting NMS tools" : String.valueOf(e.getMessage()));
+        return out;
+    }
+}
+
+--- README.md ---
+
+# HPNA SSHJ CSV Executor (Spring Boot)
+
+## Overview
+This Spring Boot application reads a CSV with `hostname,command` lines, connects to each device by first authenticating to HPNA jump server (port 8022) using SSH password, port-forwards to the device and executes the command. Results are written to `hostname,command,output` CSV.
+
+## Endpoints
+- `POST /api/upload-and-run` — multipart file upload (CSV). Returns output CSV as download.
+- `POST /api/process-local?inputPath=...&outputPath=...` — use local paths.
+- `GET /api/nms/status?host=...` — HPNA/NNM/SevOne status of one host, same JSON as `AggregatorServlet`.
+- `POST /api/nms/status/bulk` — JSON array of hosts; streams one status document per line (`application/x-ndjson`) as each host completes. At most `nms.bulk-max-hosts` (5000) hosts per request. The stream runs as an async request, so `spring.mvc.async.request-timeout` (300s) must cover `ceil(bulk-max-hosts / bulk-concurrency) * overall-timeout-ms`. A warning is logged at startup if it does not.
+
+The status endpoints are non-blocking: `WebClient` calls run on the Reactor Netty event loop, with one connection pool per backend (`nms.*.max-connections`). The request thread is released as soon as the handler returns its `Mono`/`Flux` (async servlet processing), so thousands of concurrent checks need only a few threads.
+
+## Notes / Security
+- This example stores HPNA and device credentials in `application.yml` for simplicity. For production, use a secret manager or environment variables.
+- Host keys are checked against `ssh.known-hosts`, kept in memory. With `host-key-policy: accept-new`, hosts seen for the first time are trusted and appended to the file in the background. `strict` refuses unknown hosts. Under both `accept-new` and `strict` a host whose key differs from the known one is refused. `off` restores the old accept-all behaviour and does not check keys at all, not even changed ones. Device keys are checked against the device hostname, not the local forward.
+- Set `hpna.private-key-path` / `device.private-key-path` for key-based auth. Keys are parsed once at startup and shared by all connections. The password is tried if the key is rejected.
+- All clients share one sshj config. The preferred ciphers and key exchanges (`ssh.ciphers`, `ssh.kex`) are tried first.
+- Commands have a timeout (configurable). Adjust `ssh.command-timeout-sec` as needed.
+
+## Login rate limits
+Many parallel logins against devices that share AAA/TACACS servers get throttled and then look like bad credentials. Before connecting, every row waits for a token at three levels (`rate-limit.*`, token buckets with a burst size):
+- all logins of this instance (`global-logins-per-sec`)
+- logins per jump server (`jump-logins-per-sec`)
+- logins per device group (`group-logins-per-sec`). The group is the CSV column `csv.group-column` when present, otherwise capture group 1 of `group-pattern` applied to the hostname. IP addresses never match the pattern.
+
+Defaults: rate limiting is off (`rate-limit.enabled: false`), so runs behave as before until you turn it on. When enabled, the limits are 10 logins/s per instance (burst 10) and 5/s per jump server (burst 5). The group limit is 2/s (burst 2), but only for rows that have a group column value or match `group-pattern`, which is empty by default. Set a rate to 0 to turn that level off. Time spent waiting shows up as `rate_limit_wait` in the run trace. With these limits in place `csv.max-parallel` can be raised without tripping the AAA servers.
+
+The buckets are kept in memory, per instance, and are not shared between cluster workers. N workers each pacing at the configured rate would send N times the logins. Set `rate-limit.instances` to the number of nodes that run rows (workers, plus the coordinator when `cluster.coordinator-works` is true). Each instance then uses 1/N of every rate and burst, with a minimum burst of 1.
+
+## Run traces
+Every row records spans for executor queue wait, jump connect/auth, port forward, device connect/auth, command runtime (`exec`), output drain and disconnect into an in-memory ring buffer (`trace.buffer-size`). When a phase throws, for example an auth failure or connect timeout, its time is recorded as `<phase>_failed` (e.g. `jump_auth_failed`). After a run two files are written next to the output CSV:
+- `<output>.trace.json` — Chrome trace format, open in `chrome://tracing` or https://ui.perfetto.dev
+- `<output>.trace-summary.txt` — per-phase p50/p90/p99/max, the `trace.slowest-rows` slowest rows (row number and host) with their phase split, and how the time of the p99 tail rows is spread over phases compared with all rows.
+
+Set `trace.enabled: false` to turn recording off.
+
+## Cluster mode
+Set `cluster.role` to spread one CSV over several instances that share `cluster.queue-dir` (a local or NFS directory, no broker needed):
+- `coordinator` — the instance that receives the API call. It splits the rows into shards of `cluster.shard-size`, waits for them and writes one output CSV in input order. With `cluster.coordinator-works: true` it also runs shards itself.
+- `worker` — pulls shards from the queue and runs them on its own `sshExecutor`. Idle workers keep pulling, so faster workers take more of the job.
+- Each node keeps leasing shards while fewer than `csv.max-parallel` of its shard rows are running, so one slow device does not leave the executor idle.
+- A worker renews its lease every `cluster.lease-timeout-ms / 3`. If a worker dies, its shard is given out again once the lease expires.
+- A job that is not finished after `cluster.job-timeout-ms` fails the API call and its queue directory is removed. This happens, for example, when no worker is alive and `coordinator-works` is false.
+- Each node writes the spans of its shards next to the shard results; the coordinator merges them into one trace.
+
+Several workers on one machine:
+
+java -jar target/hpna-sshj-csv-0.0.1-SNAPSHOT.jar --cluster.role=coordinator
+java -jar target/hpna-sshj-csv-0.0.1-SNAPSHOT.jar --cluster.role=worker --server.port=0 --cluster.worker-id=w1
+java -jar target/hpna-sshj-csv-0.0.1-SNAPSHOT.jar --cluster.role=worker --server.port=0 --cluster.worker-id=w2
 
 ## Build
 